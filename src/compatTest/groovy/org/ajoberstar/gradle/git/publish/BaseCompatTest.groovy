@@ -466,6 +466,454 @@ gitPublish {
     !latestCommit.contains('gpgsign')
   }
 
+  def 'commit records source provenance and upToDate reads it back from the remote tip'() {
+    given:
+    projectFile('src/content.txt') << 'published content here'
+
+    buildFile << """
+plugins {
+  id 'org.ajoberstar.git-publish'
+}
+
+gitPublish {
+  repoUri = '${repoPath(remote)}'
+  branch = 'gh-pages'
+  contents.from 'src'
+  sourceInputs.from 'src'
+}
+
+tasks.register('printUpToDate') {
+  def upToDate = gitPublish.upToDate
+  doLast {
+    println "upToDate=\${upToDate.get()}"
+  }
+}
+"""
+    def source = Grgit.init(dir: projectDir)
+    source.add(patterns: ['.'])
+    source.commit(message: 'source commit', sign: false)
+
+    when:
+    def before = build('printUpToDate', '--configuration-cache')
+    def result = build()
+    def after = build('printUpToDate', '--configuration-cache')
+    and:
+    remote.checkout(branch: 'gh-pages')
+    then:
+    result.task(':gitPublishPush').outcome == TaskOutcome.SUCCESS
+    remote.head().fullMessage.startsWith('Generated by gradle-git-publish.\n\n')
+    remote.head().fullMessage.contains("Git-Publish-Source-Commit: ${source.head().id}\n")
+    remote.head().fullMessage.contains('Git-Publish-Source-Inputs-Hash: sha256:')
+    before.output.contains('upToDate=false')
+    after.output.contains('upToDate=true')
+  }
+
+  def 'upToDate only depends on source inputs, not the source commit'() {
+    given:
+    projectFile('src/content.txt') << 'published content here'
+    projectFile('notes.txt') << 'not an input'
+
+    buildFile << """
+plugins {
+  id 'org.ajoberstar.git-publish'
+}
+
+gitPublish {
+  repoUri = '${repoPath(remote)}'
+  branch = 'gh-pages'
+  contents.from 'src'
+  sourceInputs.from 'src'
+}
+
+tasks.register('printUpToDate') {
+  def upToDate = gitPublish.upToDate
+  doLast {
+    println "upToDate=\${upToDate.get()}"
+  }
+}
+"""
+    def source = Grgit.init(dir: projectDir)
+    source.add(patterns: ['build.gradle', 'src', 'notes.txt'])
+    source.commit(message: 'source commit', sign: false)
+
+    when:
+    build()
+    and:
+    projectFile('notes.txt') << 'still not an input'
+    source.add(patterns: ['notes.txt'])
+    source.commit(message: 'unrelated commit', sign: false)
+    def afterUnrelated = build('printUpToDate', '--configuration-cache')
+    and:
+    projectFile('src/content.txt') << ' and more'
+    def afterInputChange = build('printUpToDate', '--configuration-cache')
+    then:
+    afterUnrelated.output.contains('upToDate=true')
+    afterInputChange.output.contains('upToDate=false')
+  }
+
+  def 'upToDate is false without source inputs'() {
+    given:
+    projectFile('src/content.txt') << 'published content here'
+
+    buildFile << """
+plugins {
+  id 'org.ajoberstar.git-publish'
+}
+
+gitPublish {
+  repoUri = '${repoPath(remote)}'
+  branch = 'gh-pages'
+  contents.from 'src'
+}
+
+tasks.register('printUpToDate') {
+  def upToDate = gitPublish.upToDate
+  doLast {
+    println "upToDate=\${upToDate.get()}"
+  }
+}
+"""
+    def source = Grgit.init(dir: projectDir)
+    source.add(patterns: ['build.gradle', 'src'])
+    source.commit(message: 'source commit', sign: false)
+
+    when:
+    build()
+    def result = build('printUpToDate', '--configuration-cache')
+    and:
+    remote.checkout(branch: 'gh-pages')
+    then:
+    remote.head().fullMessage.contains("Git-Publish-Source-Commit: ${source.head().id}\n")
+    result.output.contains('upToDate=false')
+  }
+
+  def 'commit records new provenance even if the published content is unchanged'() {
+    given:
+    projectFile('src/content.txt') << 'published content here'
+    projectFile('other/input.txt') << 'an input that is not published'
+
+    buildFile << """
+plugins {
+  id 'org.ajoberstar.git-publish'
+}
+
+gitPublish {
+  repoUri = '${repoPath(remote)}'
+  branch = 'gh-pages'
+  contents.from 'src'
+  sourceInputs.from 'src', 'other'
+}
+"""
+    when:
+    build()
+    projectFile('other/input.txt') << ' that changed'
+    def result = build()
+    and:
+    remote.checkout(branch: 'gh-pages')
+    then:
+    result.task(':gitPublishCommit').outcome == TaskOutcome.SUCCESS
+    result.task(':gitPublishPush').outcome == TaskOutcome.SUCCESS
+    remote.log().size() == 3
+  }
+
+  def 'publication is skipped along with its generator when upToDate'() {
+    given:
+    projectFile('src/docs/index.txt') << 'source of the docs'
+
+    buildFile << """
+plugins {
+  id 'org.ajoberstar.git-publish'
+}
+
+def generate = tasks.register('generate') {
+  def source = file('src/docs/index.txt')
+  def output = layout.buildDirectory.file('generated/index.html')
+  def upToDate = gitPublish.upToDate
+  outputs.file(output)
+  onlyIf { !upToDate.get() }
+  doLast {
+    output.get().asFile.text = source.text.toUpperCase()
+  }
+}
+
+gitPublish {
+  repoUri = '${repoPath(remote)}'
+  branch = 'gh-pages'
+  contents.from(generate)
+  sourceInputs.from 'src/docs'
+}
+"""
+    when:
+    def first = build()
+    // like a fresh clone or a clean build, the generator's output is gone
+    new File(projectDir, 'build').deleteDir()
+    def second = build()
+    and:
+    remote.checkout(branch: 'gh-pages')
+    then:
+    first.task(':generate').outcome == TaskOutcome.SUCCESS
+    first.task(':gitPublishPush').outcome == TaskOutcome.SUCCESS
+    second.task(':generate').outcome == TaskOutcome.SKIPPED
+    second.task(':gitPublishReset').outcome == TaskOutcome.SKIPPED
+    second.task(':gitPublishCopy').outcome == TaskOutcome.SKIPPED
+    second.task(':gitPublishCommit').outcome == TaskOutcome.SKIPPED
+    second.task(':gitPublishPush').outcome == TaskOutcome.SKIPPED
+    remote.log().size() == 2
+    remoteFile('index.html').text == 'SOURCE OF THE DOCS'
+  }
+
+  def 'source inputs hash distinguishes same-named files in different roots'() {
+    given:
+    projectFile('src/a/index.txt') << 'first'
+    projectFile('src/b/index.txt') << 'second'
+
+    buildFile << """
+plugins {
+  id 'org.ajoberstar.git-publish'
+}
+
+gitPublish {
+  repoUri = '${repoPath(remote)}'
+  branch = 'gh-pages'
+  contents.from 'src'
+  sourceInputs.from 'src/a', 'src/b'
+}
+
+tasks.register('printUpToDate') {
+  def upToDate = gitPublish.upToDate
+  doLast {
+    println "upToDate=\${upToDate.get()}"
+  }
+}
+"""
+    when:
+    build()
+    projectFile('src/a/index.txt').text = 'second'
+    projectFile('src/b/index.txt').text = 'first'
+    def result = build('printUpToDate', '--configuration-cache')
+    then:
+    result.output.contains('upToDate=false')
+  }
+
+  def 'compressed files are excluded from delta compression'() {
+    given:
+    projectFile('src/content.txt') << 'published content here'
+    projectFile('src/images/logo.png') << 'not really a png'
+
+    buildFile << """
+plugins {
+  id 'org.ajoberstar.git-publish'
+}
+
+gitPublish {
+  repoUri = '${repoPath(remote)}'
+  branch = 'gh-pages'
+  contents.from 'src'
+}
+"""
+    when:
+    def result = build()
+    and:
+    remote.checkout(branch: 'gh-pages')
+    then:
+    result.task(':gitPublishPush').outcome == TaskOutcome.SUCCESS
+    remoteFile('images/logo.png').text == 'not really a png'
+    def attributes = projectFile('build/gitPublish/main/.git/info/attributes').text
+    attributes.contains('*.png -delta')
+    !attributes.contains('*.txt')
+  }
+
+  def 'large random files are excluded from delta compression, large text files are not'() {
+    given:
+    def random = new byte[80 * 1024]
+    new Random(0).nextBytes(random)
+    projectFile('src/data/random.dat').bytes = random
+    projectFile('src/big.txt') << ('All work and no play makes Jack a dull boy.\n' * 2000)
+
+    buildFile << """
+plugins {
+  id 'org.ajoberstar.git-publish'
+}
+
+gitPublish {
+  repoUri = '${repoPath(remote)}'
+  branch = 'gh-pages'
+  contents.from 'src'
+}
+"""
+    when:
+    def result = build()
+    then:
+    result.task(':gitPublishPush').outcome == TaskOutcome.SUCCESS
+    def attributes = projectFile('build/gitPublish/main/.git/info/attributes').text
+    attributes.contains('/data/random.dat -delta')
+    !attributes.contains('big.txt')
+  }
+
+  def 'attributes outside of the managed block are kept'() {
+    given:
+    projectFile('src/images/logo.png') << 'not really a png'
+
+    buildFile << """
+plugins {
+  id 'org.ajoberstar.git-publish'
+}
+
+gitPublish {
+  repoUri = '${repoPath(remote)}'
+  branch = 'gh-pages'
+  contents.from 'src'
+}
+"""
+    when:
+    build()
+    def attributesFile = projectFile('build/gitPublish/main/.git/info/attributes')
+    attributesFile << '*.svg -diff\n'
+    projectFile('src/fonts/font.woff2') << 'not really a font'
+    def result = build()
+    then:
+    result.task(':gitPublishPush').outcome == TaskOutcome.SUCCESS
+    def attributes = attributesFile.text
+    attributes.contains('*.svg -diff\n')
+    attributes.contains('*.png -delta')
+    attributes.contains('*.woff2 -delta')
+    attributes.count('# BEGIN gradle-git-publish binary attributes') == 1
+  }
+
+  def 'disabling optimizeBinaries removes the managed attributes'() {
+    given:
+    projectFile('src/images/logo.png') << 'not really a png'
+
+    buildFile << """
+plugins {
+  id 'org.ajoberstar.git-publish'
+}
+
+gitPublish {
+  repoUri = '${repoPath(remote)}'
+  branch = 'gh-pages'
+  contents.from 'src'
+  optimizeBinaries.set(providers.gradleProperty('optimize').map { it.toBoolean() }.orElse(true))
+}
+"""
+    when:
+    build()
+    def attributesFile = projectFile('build/gitPublish/main/.git/info/attributes')
+    def enabled = attributesFile.text
+    attributesFile << '*.svg -diff\n'
+    build('gitPublishPush', '--stacktrace', '--configuration-cache', '-Poptimize=false')
+    def disabled = attributesFile.text
+    then:
+    enabled.contains('*.png -delta')
+    !disabled.contains('-delta')
+    !disabled.contains('# BEGIN gradle-git-publish binary attributes')
+    disabled.contains('*.svg -diff\n')
+  }
+
+  def 'publish with prefetch adds to history if branch already exists'() {
+    given:
+    projectFile('src/content.txt') << 'published content here'
+
+    buildFile << """
+plugins {
+  id 'org.ajoberstar.git-publish'
+}
+
+gitPublish {
+  repoUri = '${repoPath(remote)}'
+  branch = 'gh-pages'
+  prefetch = true
+  contents.from 'src'
+}
+"""
+    when:
+    def result = build('gitPublishPush', '--stacktrace', '--configuration-cache', '--info')
+    def rerun = build('gitPublishPush', '--stacktrace', '--configuration-cache', '--info')
+    and:
+    remote.checkout(branch: 'gh-pages')
+    then:
+    result.task(':gitPublishPush').outcome == TaskOutcome.SUCCESS
+    rerun.task(':gitPublishPush').outcome == TaskOutcome.UP_TO_DATE
+    // the service did the fetch, not the reset task's fallback
+    [result, rerun].every { it.output.contains('Using prefetched gh-pages from') }
+    [result, rerun].every { !it.output.contains('fetching again') }
+    remote.log().size() == 2
+    remoteFile('content.txt').text == 'published content here'
+  }
+
+  def 'prefetch overlaps tasks that run before reset'() {
+    given:
+    buildFile << """
+plugins {
+  id 'org.ajoberstar.git-publish'
+}
+
+def warmup = tasks.register('warmup')
+
+def sleeper = tasks.register('sleeper') {
+  dependsOn warmup
+  def out = layout.buildDirectory.file('sleeper/content.txt')
+  outputs.file(out)
+  doLast {
+    Thread.sleep(5000)
+    out.get().asFile.text = 'slow content'
+  }
+}
+
+gitPublish {
+  repoUri = '${repoPath(remote)}'
+  branch = 'gh-pages'
+  prefetch = true
+  contents.from sleeper
+}
+
+tasks.named('gitPublishReset') {
+  mustRunAfter sleeper
+}
+"""
+    when:
+    def result = build('gitPublishPush', '--stacktrace', '--configuration-cache', '--info')
+    and:
+    remote.checkout(branch: 'gh-pages')
+    then:
+    result.task(':gitPublishPush').outcome == TaskOutcome.SUCCESS
+    // started when warmup finished, so it was done while sleeper was still running
+    result.output.contains('Using prefetched gh-pages from')
+    result.output.contains('already fetched when reset started')
+    !result.output.contains('fetching again')
+    remoteFile('content.txt').text == 'slow content'
+  }
+
+  def 'prefetch is skipped when clean deletes the repo dir'() {
+    given:
+    projectFile('src/content.txt') << 'published content here'
+
+    buildFile << """
+plugins {
+  id 'base'
+  id 'org.ajoberstar.git-publish'
+}
+
+gitPublish {
+  repoUri = '${repoPath(remote)}'
+  branch = 'gh-pages'
+  prefetch = true
+  contents.from 'src'
+}
+"""
+    when:
+    build()
+    def result = build('clean', 'gitPublishPush', '--stacktrace', '--configuration-cache', '--info')
+    and:
+    remote.checkout(branch: 'gh-pages')
+    then:
+    result.task(':clean').outcome == TaskOutcome.SUCCESS
+    result.task(':gitPublishPush').outcome == TaskOutcome.UP_TO_DATE
+    !result.output.contains('Using prefetched')
+    remote.log().size() == 2
+    remoteFile('content.txt').text == 'published content here'
+  }
+
   private BuildResult build(String... args = ['gitPublishPush', '--stacktrace', '--configuration-cache']) {
     return runner(args).build()
   }
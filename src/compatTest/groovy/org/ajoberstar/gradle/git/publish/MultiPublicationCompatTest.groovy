@@ -107,6 +107,158 @@ gitPublish {
     remote2File('content.txt').text == 'second published content here'
   }
 
+  def 'subprojects contribute to an aggregating root publication'() {
+    given:
+    projectFile('settings.gradle') << """
+include 'a', 'b'
+"""
+    projectFile('a/src/content.txt') << 'a content here'
+    projectFile('b/src/content.txt') << 'b content here'
+
+    buildFile << """
+plugins {
+  id 'org.ajoberstar.git-publish'
+}
+
+gitPublish {
+  repoUri = '${repoPath(remote1)}'
+  branch = 'gh-pages'
+  aggregate = true
+}
+"""
+    projectFile('a/build.gradle') << """
+plugins {
+  id 'org.ajoberstar.git-publish'
+}
+
+gitPublish {
+  contents {
+    from 'src'
+    into 'a'
+  }
+}
+"""
+    projectFile('b/build.gradle') << """
+plugins {
+  id 'org.ajoberstar.git-publish'
+}
+
+gitPublish {
+  contents {
+    from 'src'
+    into 'b'
+  }
+  preserve {
+    include '1.0.0/**'
+  }
+}
+"""
+    when:
+    def result = build()
+    and:
+    remote1.checkout(branch: 'gh-pages')
+    then:
+    result.task(':gitPublishPush').outcome == TaskOutcome.SUCCESS
+    result.task(':a:gitPublishPush').outcome == TaskOutcome.SKIPPED
+    result.task(':b:gitPublishPush').outcome == TaskOutcome.SKIPPED
+    remote1.log().size() == 2
+    remote1File('a/content.txt').text == 'a content here'
+    remote1File('b/content.txt').text == 'b content here'
+    remote1File('1.0.0/index.md').exists()
+    !remote1File('index.md').exists()
+  }
+
+  def 'subprojects configured before the root enables aggregation still contribute'() {
+    given:
+    projectFile('settings.gradle') << """
+include 'a', 'b'
+"""
+    projectFile('a/src/content.txt') << 'a content here'
+    projectFile('b/src/content.txt') << 'b content here'
+
+    buildFile << """
+plugins {
+  id 'org.ajoberstar.git-publish'
+}
+
+subprojects {
+  apply plugin: 'org.ajoberstar.git-publish'
+
+  gitPublish {
+    contents {
+      from 'src'
+      into project.name
+    }
+  }
+}
+
+gitPublish {
+  repoUri = '${repoPath(remote1)}'
+  branch = 'gh-pages'
+  aggregate = true
+}
+"""
+    when:
+    def result = build()
+    and:
+    remote1.checkout(branch: 'gh-pages')
+    then:
+    result.task(':gitPublishPush').outcome == TaskOutcome.SUCCESS
+    result.task(':a:gitPublishReset').outcome == TaskOutcome.SKIPPED
+    result.task(':a:gitPublishPush').outcome == TaskOutcome.SKIPPED
+    result.task(':b:gitPublishPush').outcome == TaskOutcome.SKIPPED
+    remote1.log().size() == 2
+    remote1File('a/content.txt').text == 'a content here'
+    remote1File('b/content.txt').text == 'b content here'
+  }
+
+  def 'aggregated subprojects see the root publication as upToDate'() {
+    given:
+    projectFile('settings.gradle') << """
+include 'a'
+"""
+    projectFile('a/src/content.txt') << 'a content here'
+
+    buildFile << """
+plugins {
+  id 'org.ajoberstar.git-publish'
+}
+
+gitPublish {
+  repoUri = '${repoPath(remote1)}'
+  branch = 'gh-pages'
+  aggregate = true
+}
+"""
+    projectFile('a/build.gradle') << """
+plugins {
+  id 'org.ajoberstar.git-publish'
+}
+
+gitPublish {
+  contents {
+    from 'src'
+    into 'a'
+  }
+  sourceInputs.from 'src'
+}
+
+tasks.register('printUpToDate') {
+  def upToDate = gitPublish.upToDate
+  doLast {
+    println "upToDate=\${upToDate.get()}"
+  }
+}
+"""
+    when:
+    def before = build(':a:printUpToDate', '--configuration-cache')
+    build()
+    def after = build(':a:printUpToDate', '--configuration-cache')
+    then:
+    before.output.contains('upToDate=false')
+    after.output.contains('upToDate=true')
+  }
+
   private BuildResult build(String... args = ['gitPublishPushAll', '--stacktrace', '--configuration-cache']) {
     return runner(args).build()
   }
@@ -3,10 +3,12 @@ package org.ajoberstar.gradle.git.publish;
 import org.gradle.api.Action;
 import org.gradle.api.Named;
 import org.gradle.api.Project;
+import org.gradle.api.file.ConfigurableFileCollection;
 import org.gradle.api.file.CopySpec;
 import org.gradle.api.file.DirectoryProperty;
 import org.gradle.api.model.ObjectFactory;
 import org.gradle.api.provider.Property;
+import org.gradle.api.provider.Provider;
 import org.gradle.api.tasks.util.PatternFilterable;
 import org.gradle.api.tasks.util.PatternSet;
 
@@ -19,10 +21,21 @@ public class GitPublication implements Named {
   private final Property<Integer> fetchDepth;
   private final Property<String> commitMessage;
   private final Property<Boolean> sign;
+  private final Property<Boolean> aggregate;
+  private final Property<String> aggregatedInto;
+  private final Property<String> aggregatedSourceInputsHash;
+  private final Property<Boolean> aggregatedUpToDate;
+  private final Property<Boolean> optimizeBinaries;
+  private final Property<Boolean> prefetch;
   private final CopySpec contents;
   private final PatternFilterable preserve;
   private final Property<String> username;
   private final Property<String> password;
+  private final Property<String> sourceCommit;
+  private final ConfigurableFileCollection sourceInputs;
+  private final Provider<String> sourceInputsHash;
+  private final Provider<String> inputsRef;
+  private final Provider<Boolean> upToDate;
 
   public GitPublication(String name, Project project, ObjectFactory objectFactory) {
     this.name = name;
@@ -33,6 +46,12 @@ public class GitPublication implements Named {
     this.fetchDepth = objectFactory.property(Integer.class);
     this.commitMessage = objectFactory.property(String.class);
     this.sign = objectFactory.property(Boolean.class);
+    this.aggregate = objectFactory.property(Boolean.class);
+    this.aggregatedInto = objectFactory.property(String.class);
+    this.aggregatedSourceInputsHash = objectFactory.property(String.class);
+    this.aggregatedUpToDate = objectFactory.property(Boolean.class);
+    this.optimizeBinaries = objectFactory.property(Boolean.class);
+    this.prefetch = objectFactory.property(Boolean.class);
 
     this.contents = project.copySpec();
     this.preserve = new PatternSet();
@@ -40,6 +59,24 @@ public class GitPublication implements Named {
 
     this.username = objectFactory.property(String.class);
     this.password = objectFactory.property(String.class);
+
+    this.sourceCommit = objectFactory.property(String.class);
+    this.sourceInputs = objectFactory.fileCollection();
+    var ownSourceInputsHash = project.getProviders().of(SourceInputsHashValueSource.class, spec -> {
+      spec.getParameters().getFiles().from(sourceInputs);
+      spec.getParameters().getBaseDir().set(project.getLayout().getProjectDirectory());
+    });
+    // once aggregated, only the aggregating publication's inputs matter
+    this.sourceInputsHash = aggregatedSourceInputsHash.orElse(ownSourceInputsHash);
+    this.inputsRef = branch.zip(sourceInputsHash, GitPublication::inputsRef);
+    var ownUpToDate = project.getProviders().of(GitPublishProvenanceValueSource.class, spec -> {
+      spec.getParameters().getRepoUri().set(repoUri);
+      spec.getParameters().getBranch().set(branch);
+      spec.getParameters().getUsername().set(username);
+      spec.getParameters().getPassword().set(password);
+      spec.getParameters().getInputsRef().set(inputsRef);
+    });
+    this.upToDate = aggregatedUpToDate.orElse(ownUpToDate);
   }
 
   @Override
@@ -75,6 +112,31 @@ public class GitPublication implements Named {
     return sign;
   }
 
+  public Property<Boolean> getAggregate() {
+    return aggregate;
+  }
+
+  /**
+   * Path of the project whose publication this one contributes to, set by that project.
+   */
+  Property<String> getAggregatedInto() {
+    return aggregatedInto;
+  }
+
+  void aggregateInto(String projectPath, GitPublication aggregator) {
+    aggregatedInto.set(projectPath);
+    aggregatedSourceInputsHash.set(aggregator.getSourceInputsHash());
+    aggregatedUpToDate.set(aggregator.getUpToDate());
+  }
+
+  public Property<Boolean> getOptimizeBinaries() {
+    return optimizeBinaries;
+  }
+
+  public Property<Boolean> getPrefetch() {
+    return prefetch;
+  }
+
   public CopySpec getContents() {
     return contents;
   }
@@ -98,4 +160,31 @@ public class GitPublication implements Named {
   public Property<String> getPassword() {
     return password;
   }
+
+  public Property<String> getSourceCommit() {
+    return sourceCommit;
+  }
+
+  public ConfigurableFileCollection getSourceInputs() {
+    return sourceInputs;
+  }
+
+  public Provider<String> getSourceInputsHash() {
+    return sourceInputsHash;
+  }
+
+  public Provider<Boolean> getUpToDate() {
+    return upToDate;
+  }
+
+  /**
+   * Ref pushed alongside the branch, naming the inputs hash the branch's tip was published from.
+   */
+  Provider<String> getInputsRef() {
+    return inputsRef;
+  }
+
+  static String inputsRef(String branch, String sourceInputsHash) {
+    return "refs/git-publish/" + branch + "/inputs/" + sourceInputsHash.replace(':', '-');
+  }
 }
@@ -5,10 +5,12 @@ import javax.inject.Inject;
 import org.gradle.api.Action;
 import org.gradle.api.NamedDomainObjectContainer;
 import org.gradle.api.Project;
+import org.gradle.api.file.ConfigurableFileCollection;
 import org.gradle.api.file.CopySpec;
 import org.gradle.api.file.DirectoryProperty;
 import org.gradle.api.model.ObjectFactory;
 import org.gradle.api.provider.Property;
+import org.gradle.api.provider.Provider;
 import org.gradle.api.tasks.util.PatternFilterable;
 
 public class GitPublishExtension {
@@ -55,6 +57,18 @@ public class GitPublishExtension {
     return publications.getByName("main").getSign();
   }
 
+  public Property<Boolean> getAggregate() {
+    return publications.getByName("main").getAggregate();
+  }
+
+  public Property<Boolean> getOptimizeBinaries() {
+    return publications.getByName("main").getOptimizeBinaries();
+  }
+
+  public Property<Boolean> getPrefetch() {
+    return publications.getByName("main").getPrefetch();
+  }
+
   public CopySpec getContents() {
     return publications.getByName("main").getContents();
   }
@@ -78,4 +92,16 @@ public class GitPublishExtension {
   public Property<String> getPassword() {
     return publications.getByName("main").getPassword();
   }
+
+  public Property<String> getSourceCommit() {
+    return publications.getByName("main").getSourceCommit();
+  }
+
+  public ConfigurableFileCollection getSourceInputs() {
+    return publications.getByName("main").getSourceInputs();
+  }
+
+  public Provider<Boolean> getUpToDate() {
+    return publications.getByName("main").getUpToDate();
+  }
 }
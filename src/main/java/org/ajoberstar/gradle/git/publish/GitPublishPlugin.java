@@ -1,17 +1,33 @@
 package org.ajoberstar.gradle.git.publish;
 
+import java.util.List;
+
+import javax.inject.Inject;
+
 import org.ajoberstar.gradle.git.publish.tasks.GitPublishCommit;
+import org.ajoberstar.gradle.git.publish.tasks.GitPublishPrefetchService;
 import org.ajoberstar.gradle.git.publish.tasks.GitPublishPush;
 import org.ajoberstar.gradle.git.publish.tasks.GitPublishReset;
 import org.gradle.api.Plugin;
 import org.gradle.api.Project;
+import org.gradle.api.Task;
+import org.gradle.api.execution.TaskExecutionGraph;
 import org.gradle.api.provider.Provider;
 import org.gradle.api.provider.ProviderFactory;
 import org.gradle.api.tasks.Copy;
+import org.gradle.api.tasks.Delete;
 import org.gradle.api.tasks.TaskProvider;
+import org.gradle.build.event.BuildEventsListenerRegistry;
 import org.gradle.util.GradleVersion;
 
 public class GitPublishPlugin implements Plugin<Project> {
+  private final BuildEventsListenerRegistry listenerRegistry;
+
+  @Inject
+  public GitPublishPlugin(BuildEventsListenerRegistry listenerRegistry) {
+    this.listenerRegistry = listenerRegistry;
+  }
+
   @Override
   public void apply(Project project) {
     var extension = project.getExtensions().create("gitPublish", GitPublishExtension.class, project);
@@ -31,6 +47,32 @@ public class GitPublishPlugin implements Plugin<Project> {
       push.configure(t -> t.dependsOn(commit));
       commit.configure(t -> t.dependsOn(copy));
       copy.configure(t -> t.dependsOn(reset));
+
+      // (if prefetching) start fetching once the first task finishes, unless another task would delete the repo under it
+      project.getGradle().getTaskGraph().whenReady(graph -> {
+        var resetPath = project.absoluteProjectPath(reset.getName());
+        if (!publication.getPrefetch().get() || !graph.hasTask(resetPath) || publication.getAggregatedInto().isPresent()) {
+          return;
+        }
+        if (deletesRepoDir(graph, publication)) {
+          // fetch in the reset task itself instead
+          reset.get().getPrefetch().set(false);
+        } else {
+          listenerRegistry.onTaskCompletion(reset.get().getPrefetchService());
+        }
+      });
+
+      // (if the sources haven't changed since the last publish) don't touch the published content
+      reset.configure(t -> skipIfUpToDate(t, publication));
+      copy.configure(t -> skipIfUpToDate(t, publication));
+      commit.configure(t -> skipIfUpToDate(t, publication));
+      push.configure(t -> skipIfUpToDate(t, publication));
+
+      // (if aggregated into the root project's publication) defer to the root project's tasks
+      reset.configure(t -> deferToAggregator(t, publication));
+      copy.configure(t -> deferToAggregator(t, publication));
+      commit.configure(t -> deferToAggregator(t, publication));
+      push.configure(t -> deferToAggregator(t, publication));
     });
 
     // add helper task to push all publications
@@ -39,13 +81,22 @@ public class GitPublishPlugin implements Plugin<Project> {
       task.setDescription("Pushes all publications to git");
       task.dependsOn(project.getTasks().withType(GitPublishPush.class));
     });
+
+    // once all projects are configured, pull in contributions from subprojects
+    if (project == project.getRootProject()) {
+      project.getGradle().projectsEvaluated(gradle -> aggregateSubprojects(project, extension));
+    }
   }
 
   private void configurePublicationDefaults(Project project, GitPublication publication) {
     publication.getCommitMessage().set("Generated by gradle-git-publish.");
+    publication.getAggregate().set(false);
+    publication.getOptimizeBinaries().set(true);
+    publication.getPrefetch().set(false);
     publication.getRepoUri().set(getOriginUriProvider(project.getProviders()));
     publication.getReferenceRepoUri().set(getGitDirProvider(project.getProviders()));
     publication.getRepoDir().set(project.getLayout().getBuildDirectory().dir("gitPublish/" + publication.getName()));
+    publication.getSourceCommit().set(getHeadCommitProvider(project.getProviders()));
   }
 
   private TaskProvider<GitPublishReset> createResetTask(Project project, GitPublication publication) {
@@ -60,6 +111,24 @@ public class GitPublishPlugin implements Plugin<Project> {
       task.setPreserve(publication.getPreserve());
       task.getUsername().set(publication.getUsername());
       task.getPassword().set(publication.getPassword());
+      task.getPrefetch().set(publication.getPrefetch());
+
+      var prefetchService = createPrefetchService(project, publication);
+      task.getPrefetchService().set(prefetchService);
+      task.usesService(prefetchService);
+    });
+  }
+
+  private Provider<GitPublishPrefetchService> createPrefetchService(Project project, GitPublication publication) {
+    var serviceName = (project.getPath() + getTaskName(publication, "Prefetch")).replace(':', '_');
+    return project.getGradle().getSharedServices().registerIfAbsent(serviceName, GitPublishPrefetchService.class, spec -> {
+      spec.getParameters().getRepoDir().set(publication.getRepoDir());
+      spec.getParameters().getRepoUri().set(publication.getRepoUri());
+      spec.getParameters().getReferenceRepoUri().set(publication.getReferenceRepoUri());
+      spec.getParameters().getBranch().set(publication.getBranch());
+      spec.getParameters().getFetchDepth().set(publication.getFetchDepth());
+      spec.getParameters().getUsername().set(publication.getUsername());
+      spec.getParameters().getPassword().set(publication.getPassword());
     });
   }
 
@@ -84,6 +153,9 @@ public class GitPublishPlugin implements Plugin<Project> {
       task.getRepoDir().set(publication.getRepoDir());
       task.getMessage().set(publication.getCommitMessage());
       task.getSign().set(publication.getSign());
+      task.getOptimizeBinaries().set(publication.getOptimizeBinaries());
+      task.getSourceCommit().set(publication.getSourceCommit());
+      task.getSourceInputsHash().set(publication.getSourceInputsHash());
     });
   }
 
@@ -93,11 +165,60 @@ public class GitPublishPlugin implements Plugin<Project> {
       task.setDescription("Pushes " + publication.getName() + " publication changes to git.");
       task.getRepoDir().set(publication.getRepoDir());
       task.getBranch().set(publication.getBranch());
+      task.getInputsRef().set(publication.getInputsRef());
       task.getUsername().set(publication.getUsername());
       task.getPassword().set(publication.getPassword());
     });
   }
 
+  private void aggregateSubprojects(Project project, GitPublishExtension extension) {
+    for (var publication : extension.getPublications()) {
+      if (!publication.getAggregate().get()) {
+        continue;
+      }
+
+      for (var subproject : project.getSubprojects()) {
+        var subExtension = subproject.getExtensions().findByType(GitPublishExtension.class);
+        if (subExtension == null) {
+          continue;
+        }
+
+        var contribution = subExtension.getPublications().findByName(publication.getName());
+        if (contribution == null) {
+          continue;
+        }
+
+        publication.getContents().with(contribution.getContents());
+        publication.getSourceInputs().from(contribution.getSourceInputs());
+        project.getTasks().named(getTaskName(publication, "Reset"), GitPublishReset.class, t -> {
+          t.getAggregatedPreserves().add(contribution.getPreserve());
+        });
+        contribution.aggregateInto(project.getPath(), publication);
+      }
+    }
+  }
+
+  private boolean deletesRepoDir(TaskExecutionGraph graph, GitPublication publication) {
+    var repoDir = publication.getRepoDir().get().getAsFile().toPath();
+    return graph.getAllTasks().stream()
+        .filter(Delete.class::isInstance)
+        .flatMap(task -> ((Delete) task).getTargetFiles().getFiles().stream())
+        .anyMatch(target -> repoDir.startsWith(target.toPath()));
+  }
+
+  private void skipIfUpToDate(Task task, GitPublication publication) {
+    var upToDate = publication.getUpToDate();
+    task.onlyIf(t -> !upToDate.get());
+  }
+
+  private void deferToAggregator(Task task, GitPublication publication) {
+    var taskName = task.getName();
+    var aggregated = publication.getAggregatedInto().map(path -> true).orElse(false);
+    task.onlyIf(t -> !aggregated.get());
+    // only the root project aggregates
+    task.dependsOn(publication.getAggregatedInto().map(path -> List.of(":" + taskName)).orElse(List.of()));
+  }
+
   private Provider<String> getOriginUriProvider(ProviderFactory providers) {
     return providers.of(GitCliValueSource.class, spec -> {
       spec.getParameters().getGitArguments().addAll("remote", "get-url", "origin");
@@ -110,6 +231,12 @@ public class GitPublishPlugin implements Plugin<Project> {
     });
   }
 
+  private Provider<String> getHeadCommitProvider(ProviderFactory providers) {
+    return providers.of(GitCliValueSource.class, spec -> {
+      spec.getParameters().getGitArguments().addAll("rev-parse", "HEAD");
+    });
+  }
+
   private String getTaskName(GitPublication publication, String task) {
     if ("main".equals(publication.getName())) {
       return "gitPublish" + task;
@@ -0,0 +1,80 @@
+package org.ajoberstar.gradle.git.publish;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+
+import javax.inject.Inject;
+
+import org.gradle.api.provider.Property;
+import org.gradle.api.provider.ValueSource;
+import org.gradle.api.provider.ValueSourceParameters;
+import org.gradle.process.ExecOperations;
+
+/**
+ * Checks whether the tip of the remote publication branch was published from the current source
+ * inputs. Each push also pushes the tip to a ref named after the inputs hash (see
+ * {@link GitPublication#inputsRef(String, String)}), so a single {@code git ls-remote} answers this
+ * without fetching anything.
+ */
+public abstract class GitPublishProvenanceValueSource implements ValueSource<Boolean, GitPublishProvenanceValueSource.Params> {
+  public interface Params extends ValueSourceParameters {
+    Property<String> getRepoUri();
+
+    Property<String> getBranch();
+
+    Property<String> getUsername();
+
+    Property<String> getPassword();
+
+    Property<String> getInputsRef();
+  }
+
+  @Inject
+  protected abstract ExecOperations getExecOperations();
+
+  @Override
+  public Boolean obtain() {
+    var params = getParameters();
+    // without inputs to hash, there's no way to tell if the sources changed
+    if (!params.getInputsRef().isPresent()) {
+      return false;
+    }
+
+    try {
+      var branchRef = "refs/heads/" + params.getBranch().get();
+      var inputsRef = params.getInputsRef().get();
+
+      var output = new ByteArrayOutputStream();
+      getExecOperations().exec(spec -> {
+        spec.executable("git");
+
+        if (params.getUsername().isPresent() && params.getPassword().isPresent()) {
+          // blank out helper, so we can override global ones
+          spec.args("-c", "credential.helper=");
+          spec.args("-c", "credential.helper=!f() { echo username=$GIT_USERNAME; echo password=$GIT_PASSWORD; }; f");
+          spec.environment("GIT_USERNAME", params.getUsername().get());
+          spec.environment("GIT_PASSWORD", params.getPassword().get());
+        }
+
+        spec.args("ls-remote", params.getRepoUri().get(), branchRef, inputsRef);
+        spec.setStandardOutput(output);
+        spec.setErrorOutput(OutputStream.nullOutputStream());
+      });
+
+      var refs = new HashMap<String, String>();
+      for (var line : output.toString(StandardCharsets.UTF_8).split("\n")) {
+        var parts = line.trim().split("\\s+");
+        if (parts.length == 2) {
+          refs.put(parts[1], parts[0]);
+        }
+      }
+
+      // the tip must still be what was published from these inputs
+      return refs.containsKey(branchRef) && refs.get(branchRef).equals(refs.get(inputsRef));
+    } catch (Exception e) {
+      return false;
+    }
+  }
+}
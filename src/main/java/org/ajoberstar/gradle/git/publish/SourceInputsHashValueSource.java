@@ -0,0 +1,76 @@
+package org.ajoberstar.gradle.git.publish;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+
+import org.gradle.api.file.ConfigurableFileCollection;
+import org.gradle.api.file.DirectoryProperty;
+import org.gradle.api.file.FileVisitDetails;
+import org.gradle.api.file.FileVisitor;
+import org.gradle.api.provider.ValueSource;
+import org.gradle.api.provider.ValueSourceParameters;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Hashes the contents of a publication's source inputs, keyed by path relative to the project, so
+ * the same sources produce the same hash regardless of where the project is checked out.
+ */
+public abstract class SourceInputsHashValueSource implements ValueSource<String, SourceInputsHashValueSource.Params> {
+  public interface Params extends ValueSourceParameters {
+    ConfigurableFileCollection getFiles();
+
+    DirectoryProperty getBaseDir();
+  }
+
+  @Override
+  public @Nullable String obtain() {
+    var baseDir = getParameters().getBaseDir().get().getAsFile().toPath();
+    var entries = new ArrayList<String>();
+    getParameters().getFiles().getAsFileTree().visit(new FileVisitor() {
+      @Override
+      public void visitDir(FileVisitDetails fileVisitDetails) {
+        // do nothing
+      }
+
+      @Override
+      public void visitFile(FileVisitDetails fileVisitDetails) {
+        try {
+          var content = Files.readAllBytes(fileVisitDetails.getFile().toPath());
+          // not the path relative to the collection's root, since there may be several roots
+          var path = baseDir.relativize(fileVisitDetails.getFile().toPath()).toString().replace('\\', '/');
+          entries.add(path + "\0" + hex(sha256(content)));
+        } catch (IOException e) {
+          throw new UncheckedIOException(e);
+        }
+      }
+    });
+
+    if (entries.isEmpty()) {
+      return null;
+    }
+
+    entries.sort(null);
+    return "sha256:" + hex(sha256(String.join("\n", entries).getBytes(StandardCharsets.UTF_8)));
+  }
+
+  private static byte[] sha256(byte[] bytes) {
+    try {
+      return MessageDigest.getInstance("SHA-256").digest(bytes);
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private static String hex(byte[] bytes) {
+    var builder = new StringBuilder();
+    for (byte b : bytes) {
+      builder.append(String.format("%02x", b));
+    }
+    return builder.toString();
+  }
+}
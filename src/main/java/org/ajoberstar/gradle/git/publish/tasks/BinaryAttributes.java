@@ -0,0 +1,153 @@
+package org.ajoberstar.gradle.git.publish.tasks;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Maintains a block of {@code -delta} attributes in a repo's {@code info/attributes} for files that
+ * are already compressed, where delta searches cost CPU during packing and rarely save space.
+ */
+final class BinaryAttributes {
+  private static final String BEGIN_MARKER = "# BEGIN gradle-git-publish binary attributes";
+  private static final String END_MARKER = "# END gradle-git-publish binary attributes";
+
+  private static final Set<String> COMPRESSED_EXTENSIONS = Set.of(
+      "png", "jpg", "jpeg", "gif", "webp", "avif", "ico",
+      "woff", "woff2", "ttf", "otf", "eot",
+      "zip", "jar", "war", "gz", "tgz", "bz2", "xz", "zst", "7z",
+      "pdf", "mp3", "mp4", "webm", "ogg");
+
+  // only sample files big enough for a delta search to matter
+  private static final long MIN_ENTROPY_SIZE = 64 * 1024;
+  private static final int ENTROPY_SAMPLE_SIZE = 64 * 1024;
+  private static final double MAX_ENTROPY_BITS = 7.5;
+
+  private BinaryAttributes() {
+    // do not instantiate
+  }
+
+  /**
+   * Regenerates the managed block of attributes for the work tree's current files.
+   *
+   * @return the number of attribute lines in the managed block
+   */
+  static int update(Path workTree) throws IOException {
+    var lines = new TreeSet<String>();
+    var files = new ArrayList<Path>();
+    var gitDir = workTree.resolve(".git");
+    Files.walkFileTree(workTree, new SimpleFileVisitor<Path>() {
+      @Override
+      public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+        // don't descend into the object database
+        return gitDir.equals(dir) ? FileVisitResult.SKIP_SUBTREE : FileVisitResult.CONTINUE;
+      }
+
+      @Override
+      public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+        if (attrs.isRegularFile()) {
+          files.add(file);
+        }
+        return FileVisitResult.CONTINUE;
+      }
+    });
+
+    for (var file : files) {
+      var extension = extension(file);
+      if (COMPRESSED_EXTENSIONS.contains(extension.toLowerCase(Locale.ROOT))) {
+        // attribute patterns are case sensitive, so keep the extension as is
+        lines.add("*." + extension + " -delta");
+      } else if (Files.size(file) >= MIN_ENTROPY_SIZE && entropy(file) > MAX_ENTROPY_BITS) {
+        var relative = workTree.relativize(file).toString().replace('\\', '/');
+        if (isSafePattern(relative)) {
+          lines.add("/" + relative + " -delta");
+        }
+      }
+    }
+
+    writeBlock(workTree, lines);
+    return lines.size();
+  }
+
+  /**
+   * Removes the managed block of attributes, leaving any other attributes as is.
+   */
+  static void remove(Path workTree) throws IOException {
+    writeBlock(workTree, List.of());
+  }
+
+  private static void writeBlock(Path workTree, Collection<String> lines) throws IOException {
+    var attributesPath = workTree.resolve(".git").resolve("info").resolve("attributes");
+    if (lines.isEmpty() && !Files.exists(attributesPath)) {
+      return;
+    }
+    var existing = Files.exists(attributesPath) ? Files.readAllLines(attributesPath, StandardCharsets.UTF_8) : List.<String>of();
+
+    // keep anything outside of our block as is
+    var result = new ArrayList<String>();
+    var inBlock = false;
+    for (var line : existing) {
+      if (BEGIN_MARKER.equals(line)) {
+        inBlock = true;
+      } else if (END_MARKER.equals(line)) {
+        inBlock = false;
+      } else if (!inBlock) {
+        result.add(line);
+      }
+    }
+
+    if (!lines.isEmpty()) {
+      result.add(BEGIN_MARKER);
+      result.addAll(lines);
+      result.add(END_MARKER);
+    }
+
+    if (!result.equals(existing)) {
+      Files.createDirectories(attributesPath.getParent());
+      Files.write(attributesPath, result, StandardCharsets.UTF_8);
+    }
+  }
+
+  private static String extension(Path file) {
+    var name = file.getFileName().toString();
+    var dot = name.lastIndexOf('.');
+    return dot < 0 ? "" : name.substring(dot + 1);
+  }
+
+  private static boolean isSafePattern(String path) {
+    // attribute patterns treat whitespace and glob characters specially, just skip those files
+    return path.chars().noneMatch(c -> Character.isWhitespace(c) || "*?[]\\\"!#".indexOf(c) >= 0);
+  }
+
+  private static double entropy(Path file) throws IOException {
+    var counts = new long[256];
+    var total = 0;
+    try (InputStream input = Files.newInputStream(file)) {
+      var buffer = input.readNBytes(ENTROPY_SAMPLE_SIZE);
+      for (byte b : buffer) {
+        counts[b & 0xff]++;
+      }
+      total = buffer.length;
+    }
+
+    var entropy = 0.0;
+    for (var count : counts) {
+      if (count > 0) {
+        var p = (double) count / total;
+        entropy -= p * Math.log(p) / Math.log(2);
+      }
+    }
+    return entropy;
+  }
+}
@@ -0,0 +1,220 @@
+package org.ajoberstar.gradle.git.publish.tasks;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Collectors;
+
+import org.gradle.api.logging.Logger;
+import org.gradle.process.ExecOperations;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Prepares a publication's working repo and fetches its branch from the remote, leaving the work
+ * tree untouched. Shared by {@link GitPublishReset} and {@link GitPublishPrefetchService}.
+ */
+final class BranchFetcher {
+  private final ExecOperations execOperations;
+  private final Logger logger;
+  private final File repoDir;
+  private final String repoUri;
+  private final @Nullable String referenceRepoUri;
+  private final String branch;
+  private final @Nullable Integer fetchDepth;
+  private final @Nullable String username;
+  private final @Nullable String password;
+
+  BranchFetcher(ExecOperations execOperations, Logger logger, File repoDir, String repoUri, @Nullable String referenceRepoUri, String branch, @Nullable Integer fetchDepth, @Nullable String username, @Nullable String password) {
+    this.execOperations = execOperations;
+    this.logger = logger;
+    this.repoDir = repoDir;
+    this.repoUri = repoUri;
+    this.referenceRepoUri = referenceRepoUri;
+    this.branch = branch;
+    this.fetchDepth = fetchDepth;
+    this.username = username;
+    this.password = password;
+  }
+
+  /**
+   * @return whether the branch exists on the remote (and was fetched)
+   */
+  boolean fetch() throws IOException {
+    // initialize git repo, starting over if something (e.g. clean) removed part of it
+    // (git dir is passed explicitly from here on, so nothing can resolve to a parent repo)
+    var gitDir = new File(repoDir, ".git");
+    Files.createDirectories(repoDir.toPath());
+    if (!new File(gitDir, "HEAD").exists()) {
+      deleteRecursively(gitDir.toPath());
+      execOperations.exec(spec -> {
+        spec.commandLine("git", "init", "--initial-branch=" + branch, repoDir);
+        spec.workingDir(repoDir);
+        spec.setStandardOutput(OutputStream.nullOutputStream());
+      });
+    }
+
+    // (if credentials) set credential helper
+    if (username != null && password != null) {
+      // blank out helper, so we can override global ones
+      execOperations.exec(spec -> {
+        spec.commandLine("git", "--git-dir", gitDir, "config", "--local", "--replace-all", "credential.helper", "");
+        spec.workingDir(repoDir);
+        spec.setStandardOutput(OutputStream.nullOutputStream());
+      });
+      // now use our credentials
+      execOperations.exec(spec -> {
+        var script = "!f() { echo username=$GIT_USERNAME; echo password=$GIT_PASSWORD; }; f";
+        spec.commandLine("git", "--git-dir", gitDir, "config", "--local", "--add", "credential.helper", script);
+        spec.workingDir(repoDir);
+        spec.setStandardOutput(OutputStream.nullOutputStream());
+      });
+    } else {
+      // unset helper, to use global creds
+      var result = execOperations.exec(spec -> {
+        spec.commandLine("git", "--git-dir", gitDir, "config", "--unset-all", "--local", "credential.helper");
+        spec.workingDir(repoDir);
+        spec.setStandardOutput(OutputStream.nullOutputStream());
+        spec.setIgnoreExitValue(true);
+      });
+      // exit code 5 is unsetting something that's not set yet
+      if (result.getExitValue() != 0 && result.getExitValue() != 5) {
+        result.assertNormalExitValue();
+      }
+    }
+
+    // set origin
+    try {
+      execOperations.exec(spec -> {
+        spec.commandLine("git", "--git-dir", gitDir, "remote", "add", "origin", repoUri);
+        spec.workingDir(repoDir);
+        spec.setStandardOutput(OutputStream.nullOutputStream());
+        spec.setErrorOutput(OutputStream.nullOutputStream());
+      });
+    } catch (Exception e) {
+      execOperations.exec(spec -> {
+        spec.commandLine("git", "--git-dir", gitDir, "remote", "set-url", "origin", repoUri);
+        spec.workingDir(repoDir);
+        spec.setStandardOutput(OutputStream.nullOutputStream());
+      });
+    }
+
+    // set alternate object store if reference used and not using fetch depth
+    if (referenceRepoUri != null && fetchDepth == null) {
+      Path repoObjectsPath = gitDir.toPath().resolve("objects");
+      Path alternatesPath = repoObjectsPath.resolve("info").resolve("alternates");
+
+      Path referenceRepoPath = Path.of(referenceRepoUri);
+      Path referenceRepoGitPath = referenceRepoPath.resolve(".git");
+      if (Files.exists(referenceRepoGitPath)) {
+        // not a bare repo
+        referenceRepoPath = referenceRepoGitPath;
+      }
+
+      Path referenceRepoShallowPath = referenceRepoPath.resolve("shallow");
+      Path referenceRepoObjectsPath = referenceRepoPath.resolve("objects");
+
+      if (Files.exists(referenceRepoShallowPath)) {
+        logger.info("Reference repo is shallow. Cannot use as a reference.");
+      } else if (Files.exists(referenceRepoObjectsPath)) {
+        Files.writeString(alternatesPath, referenceRepoObjectsPath + "\n", StandardCharsets.UTF_8);
+      } else {
+        logger.warn("Reference repo doesn't seem to have an objects database: {}", referenceRepoPath);
+      }
+    }
+
+    // check origin for branch
+    boolean hasBranch;
+    try {
+      execOperations.exec(spec -> {
+        spec.commandLine("git", "--git-dir", gitDir, "ls-remote", "--exit-code", "origin", branch);
+        spec.workingDir(repoDir);
+
+        if (username != null && password != null) {
+          spec.environment("GIT_USERNAME", username);
+          spec.environment("GIT_PASSWORD", password);
+        }
+
+        spec.setStandardOutput(OutputStream.nullOutputStream());
+        spec.setErrorOutput(OutputStream.nullOutputStream());
+      });
+      hasBranch = true;
+    } catch (Exception e) {
+      hasBranch = false;
+    }
+
+    if (hasBranch) {
+      // get local branch reset to remote state
+      execOperations.exec(spec -> {
+        var refSpec = String.format("+refs/heads/%s:refs/remotes/origin/%s", branch, branch);
+
+        spec.executable("git");
+        spec.args("--git-dir", gitDir, "fetch");
+        if (fetchDepth != null) {
+          spec.args("--depth", fetchDepth);
+        }
+        spec.args("--no-tags");
+        spec.args("origin", refSpec);
+
+        if (username != null && password != null) {
+          spec.environment("GIT_USERNAME", username);
+          spec.environment("GIT_PASSWORD", password);
+        }
+
+        spec.workingDir(repoDir);
+        spec.setStandardOutput(OutputStream.nullOutputStream());
+      });
+    }
+
+    return hasBranch;
+  }
+
+  /**
+   * @return whether the repo still has the state left by a {@link #fetch()} returning {@code hasBranch}
+   */
+  boolean isFetched(boolean hasBranch) {
+    var gitDir = new File(repoDir, ".git");
+    if (!new File(gitDir, "HEAD").exists()) {
+      return false;
+    }
+
+    // use the git dir explicitly, so a missing repo can't resolve to a parent one
+    var remote = new ByteArrayOutputStream();
+    var remoteResult = execOperations.exec(spec -> {
+      spec.commandLine("git", "--git-dir", gitDir, "config", "--get", "remote.origin.url");
+      spec.setStandardOutput(remote);
+      spec.setErrorOutput(OutputStream.nullOutputStream());
+      spec.setIgnoreExitValue(true);
+    });
+    if (remoteResult.getExitValue() != 0 || !repoUri.equals(remote.toString(StandardCharsets.UTF_8).trim())) {
+      return false;
+    }
+
+    if (!hasBranch) {
+      return true;
+    }
+
+    var branchResult = execOperations.exec(spec -> {
+      spec.commandLine("git", "--git-dir", gitDir, "rev-parse", "--verify", "--quiet", String.format("refs/remotes/origin/%s^{commit}", branch));
+      spec.setStandardOutput(OutputStream.nullOutputStream());
+      spec.setErrorOutput(OutputStream.nullOutputStream());
+      spec.setIgnoreExitValue(true);
+    });
+    return branchResult.getExitValue() == 0;
+  }
+
+  private static void deleteRecursively(Path path) throws IOException {
+    if (!Files.exists(path)) {
+      return;
+    }
+    try (var paths = Files.walk(path)) {
+      for (var each : paths.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+        Files.delete(each);
+      }
+    }
+  }
+}
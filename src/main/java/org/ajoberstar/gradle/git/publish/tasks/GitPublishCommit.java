@@ -2,8 +2,11 @@ package org.ajoberstar.gradle.git.publish.tasks;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.io.OutputStream;
 import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
 
 import javax.inject.Inject;
 
@@ -22,6 +25,9 @@ import org.gradle.process.ExecOperations;
 
 @UntrackedTask(because = "Git tracks the state")
 public abstract class GitPublishCommit extends DefaultTask {
+  public static final String SOURCE_COMMIT_TRAILER = "Git-Publish-Source-Commit";
+  public static final String SOURCE_INPUTS_HASH_TRAILER = "Git-Publish-Source-Inputs-Hash";
+
   @OutputDirectory
   public abstract DirectoryProperty getRepoDir();
 
@@ -32,11 +38,32 @@ public abstract class GitPublishCommit extends DefaultTask {
   @Optional
   public abstract Property<Boolean> getSign();
 
+  @Input
+  @Optional
+  public abstract Property<Boolean> getOptimizeBinaries();
+
+  @Input
+  @Optional
+  public abstract Property<String> getSourceCommit();
+
+  @Input
+  @Optional
+  public abstract Property<String> getSourceInputsHash();
+
   @Inject
   protected abstract ExecOperations getExecOperations();
 
   @TaskAction
-  public void commit() {
+  public void commit() throws IOException {
+    // avoid delta searches on files that are already compressed
+    if (getOptimizeBinaries().getOrElse(false)) {
+      var count = BinaryAttributes.update(getRepoDir().get().getAsFile().toPath());
+      getLogger().info("Disabled delta compression for {} file patterns in {}", count, getRepoDir().get());
+    } else {
+      // don't leave attributes from earlier builds behind
+      BinaryAttributes.remove(getRepoDir().get().getAsFile().toPath());
+    }
+
     // add changed files
     getExecOperations().exec(spec -> {
       spec.commandLine("git", "add", "-A");
@@ -52,7 +79,10 @@ public abstract class GitPublishCommit extends DefaultTask {
       spec.setStandardOutput(status);
     });
 
-    if (status.toString(StandardCharsets.UTF_8).isEmpty()) {
+    // still commit if only the source inputs changed, so the provenance stays current
+    var inputsChanged = getSourceInputsHash().isPresent() && hasHead() && !getSourceInputsHash().get().equals(getHeadTrailers().get(SOURCE_INPUTS_HASH_TRAILER));
+
+    if (status.toString(StandardCharsets.UTF_8).isEmpty() && !inputsChanged) {
       this.setDidWork(false);
       return;
     }
@@ -60,7 +90,7 @@ public abstract class GitPublishCommit extends DefaultTask {
     // commit changes
     getExecOperations().exec(spec -> {
       spec.executable("git");
-      spec.args("commit");
+      spec.args("commit", "--allow-empty");
 
       // signing
       if (getSign().isPresent()) {
@@ -69,7 +99,7 @@ public abstract class GitPublishCommit extends DefaultTask {
 
       // message
       spec.args("--file", "-");
-      var msg = getMessage().get().getBytes(StandardCharsets.UTF_8);
+      var msg = getFullMessage().getBytes(StandardCharsets.UTF_8);
       spec.setStandardInput(new ByteArrayInputStream(msg));
 
       spec.workingDir(getRepoDir().get());
@@ -79,4 +109,53 @@ public abstract class GitPublishCommit extends DefaultTask {
 
     this.setDidWork(true);
   }
+
+  private boolean hasHead() {
+    var result = getExecOperations().exec(spec -> {
+      spec.commandLine("git", "rev-parse", "--verify", "--quiet", "HEAD");
+      spec.workingDir(getRepoDir().get());
+      spec.setStandardOutput(OutputStream.nullOutputStream());
+      spec.setErrorOutput(OutputStream.nullOutputStream());
+      spec.setIgnoreExitValue(true);
+    });
+    return result.getExitValue() == 0;
+  }
+
+  private Map<String, String> getHeadTrailers() {
+    var output = new ByteArrayOutputStream();
+    getExecOperations().exec(spec -> {
+      spec.commandLine("git", "log", "-1", "--format=%(trailers:only,unfold)", "HEAD");
+      spec.workingDir(getRepoDir().get());
+      spec.setStandardOutput(output);
+    });
+    return parseTrailers(output.toString(StandardCharsets.UTF_8));
+  }
+
+  private static Map<String, String> parseTrailers(String text) {
+    var trailers = new HashMap<String, String>();
+    for (var line : text.split("\n")) {
+      var separator = line.indexOf(':');
+      if (separator > 0) {
+        trailers.put(line.substring(0, separator).trim(), line.substring(separator + 1).trim());
+      }
+    }
+    return trailers;
+  }
+
+  private String getFullMessage() {
+    // record the provenance of the published content as trailers
+    var trailers = new StringBuilder();
+    if (getSourceCommit().isPresent()) {
+      trailers.append(SOURCE_COMMIT_TRAILER).append(": ").append(getSourceCommit().get()).append("\n");
+    }
+    if (getSourceInputsHash().isPresent()) {
+      trailers.append(SOURCE_INPUTS_HASH_TRAILER).append(": ").append(getSourceInputsHash().get()).append("\n");
+    }
+
+    if (trailers.length() == 0) {
+      return getMessage().get();
+    } else {
+      return getMessage().get().stripTrailing() + "\n\n" + trailers;
+    }
+  }
 }
@@ -0,0 +1,99 @@
+package org.ajoberstar.gradle.git.publish.tasks;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import javax.inject.Inject;
+
+import org.gradle.api.file.DirectoryProperty;
+import org.gradle.api.logging.Logging;
+import org.gradle.api.provider.Property;
+import org.gradle.api.services.BuildService;
+import org.gradle.api.services.BuildServiceParameters;
+import org.gradle.process.ExecOperations;
+import org.gradle.tooling.events.FinishEvent;
+import org.gradle.tooling.events.OperationCompletionListener;
+
+/**
+ * Fetches a publication's branch into its working repo in the background, so that
+ * {@link GitPublishReset} only has to wait on the result. Registered as a task completion listener
+ * purely so Gradle creates it early, which happens when the first task of the build finishes (not
+ * before the first task starts).
+ */
+public abstract class GitPublishPrefetchService implements BuildService<GitPublishPrefetchService.Params>, OperationCompletionListener, AutoCloseable {
+  public interface Params extends BuildServiceParameters {
+    DirectoryProperty getRepoDir();
+
+    Property<String> getRepoUri();
+
+    Property<String> getReferenceRepoUri();
+
+    Property<String> getBranch();
+
+    Property<Integer> getFetchDepth();
+
+    Property<String> getUsername();
+
+    Property<String> getPassword();
+  }
+
+  private static final long CLOSE_TIMEOUT_SECONDS = 10;
+
+  private final ExecutorService executor;
+  private final Future<Boolean> result;
+
+  @Inject
+  public GitPublishPrefetchService(ExecOperations execOperations) {
+    var params = getParameters();
+    var fetcher = new BranchFetcher(
+        execOperations,
+        Logging.getLogger(GitPublishPrefetchService.class),
+        params.getRepoDir().get().getAsFile(),
+        params.getRepoUri().get(),
+        params.getReferenceRepoUri().getOrNull(),
+        params.getBranch().get(),
+        params.getFetchDepth().getOrNull(),
+        params.getUsername().getOrNull(),
+        params.getPassword().getOrNull());
+
+    this.executor = Executors.newSingleThreadExecutor(runnable -> {
+      var thread = new Thread(runnable, "gitPublishPrefetch " + params.getBranch().get());
+      thread.setDaemon(true);
+      return thread;
+    });
+    this.result = executor.submit(fetcher::fetch);
+  }
+
+  /**
+   * @return whether the branch exists on the remote (and was fetched)
+   */
+  public boolean awaitFetch() throws InterruptedException, ExecutionException {
+    return result.get();
+  }
+
+  public boolean isFetchDone() {
+    return result.isDone();
+  }
+
+  @Override
+  public void onFinish(FinishEvent event) {
+    // only registered to be started early
+  }
+
+  @Override
+  public void close() {
+    // don't leave a fetch writing to the repo after the build, where it could collide with the next one
+    result.cancel(true);
+    executor.shutdownNow();
+    try {
+      if (!executor.awaitTermination(CLOSE_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+        Logging.getLogger(GitPublishPrefetchService.class).warn("Prefetch of {} still running after {} seconds.", getParameters().getBranch().get(), CLOSE_TIMEOUT_SECONDS);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
@@ -1,7 +1,16 @@
 package org.ajoberstar.gradle.git.publish.tasks;
 
 import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.regex.Pattern;
 
 import javax.inject.Inject;
 
@@ -13,6 +22,7 @@ import org.gradle.api.provider.Property;
 import org.gradle.api.tasks.Input;
 import org.gradle.api.tasks.InputDirectory;
 import org.gradle.api.tasks.Internal;
+import org.gradle.api.tasks.Optional;
 import org.gradle.api.tasks.OutputDirectory;
 import org.gradle.api.tasks.TaskAction;
 import org.gradle.api.tasks.UntrackedTask;
@@ -20,12 +30,21 @@ import org.gradle.process.ExecOperations;
 
 @UntrackedTask(because = "Git tracks the state")
 public abstract class GitPublishPush extends DefaultTask {
+  private static final Pattern PROGRESS = Pattern.compile("^(remote: +)?(Enumerating objects|Counting objects|Delta compression|Compressing objects|Writing objects|Resolving deltas|Unpacking objects|Total \\d+|[^:]+: +\\d+% \\()");
+  private static final Pattern TRACE_LABEL = Pattern.compile("\"label\":\"([^\"]+)\"");
+  private static final Pattern TRACE_TIME = Pattern.compile("\"t_rel\":([0-9.]+)");
+  private static final Pattern WRITING_OBJECTS = Pattern.compile("Writing objects: 100% \\((\\d+)/\\d+\\), ([^,|\\r\\n]+)");
+
   @OutputDirectory
   public abstract DirectoryProperty getRepoDir();
 
   @Input
   public abstract Property<String> getBranch();
 
+  @Input
+  @Optional
+  public abstract Property<String> getInputsRef();
+
   @Internal
   public abstract Property<String> getUsername();
 
@@ -36,23 +55,109 @@ public abstract class GitPublishPush extends DefaultTask {
   protected abstract ExecOperations getExecOperations();
 
   @TaskAction
-  public void push() {
+  public void push() throws IOException {
     var pubBranch = getBranch().get();
     var output = new ByteArrayOutputStream();
-    getExecOperations().exec(spec -> {
+    var error = new ByteArrayOutputStream();
+    var trace = new File(getTemporaryDir(), "trace2.json");
+    Files.deleteIfExists(trace.toPath());
+
+    var staleInputsRefs = getInputsRef().isPresent() ? getStaleInputsRefs() : List.<String>of();
+
+    var start = System.nanoTime();
+    var execResult = getExecOperations().exec(spec -> {
       var refSpec = String.format("refs/heads/%s:refs/heads/%s", pubBranch, pubBranch);
-      spec.commandLine("git", "push", "--porcelain", "--set-upstream", "origin", refSpec);
+      spec.commandLine("git", "push", "--porcelain", "--progress", "--set-upstream", "origin", refSpec);
+
+      // record which inputs the tip was published from, replacing any previous record
+      if (getInputsRef().isPresent()) {
+        spec.args(String.format("+refs/heads/%s:%s", pubBranch, getInputsRef().get()));
+        staleInputsRefs.forEach(ref -> spec.args(":" + ref));
+      }
 
       if (getUsername().isPresent() && getPassword().isPresent()) {
         spec.environment("GIT_USERNAME", getUsername().get());
         spec.environment("GIT_PASSWORD", getPassword().get());
       }
 
+      // progress output is parsed below, so it can't be localized
+      spec.environment("LC_ALL", "C");
+      // timings of the pack-objects phases
+      spec.environment("GIT_TRACE2_EVENT", trace.getAbsolutePath());
+
       spec.workingDir(getRepoDir().get());
       spec.setStandardOutput(output);
+      spec.setErrorOutput(error);
+      spec.setIgnoreExitValue(true);
     });
+    var elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+
+    // pass along anything git said, other than progress
+    var errorText = error.toString(StandardCharsets.UTF_8);
+    var messages = Arrays.stream(errorText.split("[\\r\\n]+"))
+        .filter(line -> !line.isBlank() && !PROGRESS.matcher(line).find())
+        .collect(Collectors.joining(System.lineSeparator()));
+    // git's stderr used to go straight to the console, keep it there
+    if (!messages.isEmpty()) {
+      getLogger().error(messages);
+    }
+    execResult.assertNormalExitValue();
 
+    // report the pack sent and the time git spent on the CPU heavy phases of building it
+    var matcher = WRITING_OBJECTS.matcher(errorText);
+    if (matcher.find()) {
+      var phases = readPackPhaseMillis(trace);
+      getLogger().info("Pushed {} objects ({}) in {} ms. Searching for deltas took {} ms, compressing and writing the pack took {} ms.", matcher.group(1), matcher.group(2).trim(), elapsedMillis, phases.getOrDefault("prepare-pack", 0L), phases.getOrDefault("write-pack-file", 0L));
+    } else {
+      getLogger().info("Pushed no new objects in {} ms", elapsedMillis);
+    }
+
+    // porcelain ref lines are tab separated, starting with = if the ref was up to date
     var result = output.toString(StandardCharsets.UTF_8);
-    this.setDidWork(!result.contains("[up to date]"));
+    this.setDidWork(result.lines().anyMatch(line -> line.contains("\t") && !line.startsWith("=")));
+  }
+
+  private List<String> getStaleInputsRefs() {
+    var inputsRef = getInputsRef().get();
+    var pattern = inputsRef.substring(0, inputsRef.lastIndexOf('/') + 1) + "*";
+
+    var output = new ByteArrayOutputStream();
+    getExecOperations().exec(spec -> {
+      spec.commandLine("git", "ls-remote", "origin", pattern);
+
+      if (getUsername().isPresent() && getPassword().isPresent()) {
+        spec.environment("GIT_USERNAME", getUsername().get());
+        spec.environment("GIT_PASSWORD", getPassword().get());
+      }
+
+      spec.workingDir(getRepoDir().get());
+      spec.setStandardOutput(output);
+    });
+
+    return output.toString(StandardCharsets.UTF_8).lines()
+        .map(line -> line.trim().split("\\s+"))
+        .filter(parts -> parts.length == 2 && !parts[1].equals(inputsRef))
+        .map(parts -> parts[1])
+        .collect(Collectors.toList());
+  }
+
+  private Map<String, Long> readPackPhaseMillis(File trace) throws IOException {
+    var phases = new HashMap<String, Long>();
+    if (!trace.exists()) {
+      return phases;
+    }
+
+    for (var line : Files.readAllLines(trace.toPath(), StandardCharsets.UTF_8)) {
+      if (!line.contains("\"event\":\"region_leave\"") || !line.contains("\"category\":\"pack-objects\"")) {
+        continue;
+      }
+      var label = TRACE_LABEL.matcher(line);
+      var time = TRACE_TIME.matcher(line);
+      if (label.find() && time.find()) {
+        var millis = Math.round(Double.parseDouble(time.group(1)) * 1000);
+        phases.merge(label.group(1), millis, Long::sum);
+      }
+    }
+    return phases;
   }
 }
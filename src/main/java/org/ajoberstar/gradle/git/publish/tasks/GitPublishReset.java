@@ -1,16 +1,16 @@
 package org.ajoberstar.gradle.git.publish.tasks;
 
-import java.io.File;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.UncheckedIOException;
-import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
-import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
 
 import javax.inject.Inject;
 
+import org.gradle.api.BuildCancelledException;
 import org.gradle.api.DefaultTask;
 import org.gradle.api.file.Directory;
 import org.gradle.api.file.DirectoryProperty;
@@ -32,6 +32,7 @@ import org.gradle.process.ExecOperations;
 @UntrackedTask(because = "Git tracks the state")
 public abstract class GitPublishReset extends DefaultTask {
   private PatternFilterable preserve;
+  private final List<PatternFilterable> aggregatedPreserves = new ArrayList<>();
 
   @OutputDirectory
   public abstract DirectoryProperty getRepoDir();
@@ -58,6 +59,18 @@ public abstract class GitPublishReset extends DefaultTask {
     this.preserve = preserve;
   }
 
+  @Internal
+  public List<PatternFilterable> getAggregatedPreserves() {
+    return aggregatedPreserves;
+  }
+
+  @Input
+  @Optional
+  public abstract Property<Boolean> getPrefetch();
+
+  @Internal
+  public abstract Property<GitPublishPrefetchService> getPrefetchService();
+
   @Internal
   public abstract Property<String> getUsername();
 
@@ -75,126 +88,16 @@ public abstract class GitPublishReset extends DefaultTask {
     var repoDir = getRepoDir().get().getAsFile();
     var pubBranch = getBranch().get();
 
-    // initialize git repo
-    if (!new File(repoDir, ".git").exists()) {
-      getExecOperations().exec(spec -> {
-        spec.commandLine("git", "init", "--initial-branch=" + pubBranch);
-        spec.workingDir(repoDir);
-        spec.setStandardOutput(OutputStream.nullOutputStream());
-      });
-    }
-
-    // (if credentials) set credential helper
-    if (getUsername().isPresent() && getPassword().isPresent()) {
-      // blank out helper, so we can override global ones
-      getExecOperations().exec(spec -> {
-        spec.commandLine("git", "config", "--local", "--replace-all", "credential.helper", "");
-        spec.workingDir(repoDir);
-        spec.setStandardOutput(OutputStream.nullOutputStream());
-      });
-      // now use our credentials
-      getExecOperations().exec(spec -> {
-        var script = "!f() { echo username=$GIT_USERNAME; echo password=$GIT_PASSWORD; }; f";
-        spec.commandLine("git", "config", "--local", "--add", "credential.helper", script);
-        spec.workingDir(repoDir);
-        spec.setStandardOutput(OutputStream.nullOutputStream());
-      });
-    } else {
-      // unset helper, to use global creds
-      var result = getExecOperations().exec(spec -> {
-        spec.commandLine("git", "config", "--unset-all", "--local", "credential.helper");
-        spec.workingDir(repoDir);
-        spec.setStandardOutput(OutputStream.nullOutputStream());
-        spec.setIgnoreExitValue(true);
-      });
-      // exit code 5 is unsetting something that's not set yet
-      if (result.getExitValue() != 0 && result.getExitValue() != 5) {
-        result.assertNormalExitValue();
-      }
-    }
+    var fetcher = new BranchFetcher(getExecOperations(), getLogger(), repoDir, getRepoUri().get(), getReferenceRepoUri().getOrNull(), pubBranch, getFetchDepth().getOrNull(), getUsername().getOrNull(), getPassword().getOrNull());
 
-    // set origin
-    try {
-      getExecOperations().exec(spec -> {
-        spec.commandLine("git", "remote", "add", "origin", getRepoUri().get());
-        spec.workingDir(repoDir);
-        spec.setStandardOutput(OutputStream.nullOutputStream());
-        spec.setErrorOutput(OutputStream.nullOutputStream());
-      });
-    } catch (Exception e) {
-      getExecOperations().exec(spec -> {
-        spec.commandLine("git", "remote", "set-url", "origin", getRepoUri().get());
-        spec.workingDir(repoDir);
-        spec.setStandardOutput(OutputStream.nullOutputStream());
-      });
-    }
-
-    // set alternate object store if reference used and not using fetch depth
-    if (getReferenceRepoUri().isPresent() && !getFetchDepth().isPresent()) {
-      Path repoObjectsPath = repoDir.toPath().resolve(".git").resolve("objects");
-      Path alternatesPath = repoObjectsPath.resolve("info").resolve("alternates");
-
-      Path referenceRepoPath = Path.of(getReferenceRepoUri().get());
-      Path referenceRepoGitPath = referenceRepoPath.resolve(".git");
-      if (Files.exists(referenceRepoGitPath)) {
-        // not a bare repo
-        referenceRepoPath = referenceRepoGitPath;
-      }
-
-      Path referenceRepoShallowPath = referenceRepoPath.resolve("shallow");
-      Path referenceRepoObjectsPath = referenceRepoPath.resolve("objects");
-
-      if (Files.exists(referenceRepoShallowPath)) {
-        getLogger().info("Reference repo is shallow. Cannot use as a reference.");
-      } else if (Files.exists(referenceRepoObjectsPath)) {
-        Files.writeString(alternatesPath, referenceRepoObjectsPath + "\n", StandardCharsets.UTF_8);
-      } else {
-        getLogger().warn("Reference repo doesn't seem to have an objects database: {}", referenceRepoPath);
-      }
-    }
-
-    // check origin for branch
     boolean hasBranch;
-    try {
-      getExecOperations().exec(spec -> {
-        spec.commandLine("git", "ls-remote", "--exit-code", "origin", pubBranch);
-        spec.workingDir(repoDir);
-
-        if (getUsername().isPresent() && getPassword().isPresent()) {
-          spec.environment("GIT_USERNAME", getUsername().get());
-          spec.environment("GIT_PASSWORD", getPassword().get());
-        }
-
-        spec.setStandardOutput(OutputStream.nullOutputStream());
-        spec.setErrorOutput(OutputStream.nullOutputStream());
-      });
-      hasBranch = true;
-    } catch (Exception e) {
-      hasBranch = false;
+    if (getPrefetch().getOrElse(false)) {
+      hasBranch = awaitPrefetch(fetcher);
+    } else {
+      hasBranch = fetcher.fetch();
     }
 
     if (hasBranch) {
-      // get local branch reset to remote state
-      getExecOperations().exec(spec -> {
-        var refSpec = String.format("+refs/heads/%s:refs/remotes/origin/%s", pubBranch, pubBranch);
-
-        spec.executable("git");
-        spec.args("fetch");
-        if (getFetchDepth().isPresent()) {
-          spec.args("--depth", getFetchDepth().get());
-        }
-        spec.args("--no-tags");
-        spec.args("origin", refSpec);
-
-        if (getUsername().isPresent() && getPassword().isPresent()) {
-          spec.environment("GIT_USERNAME", getUsername().get());
-          spec.environment("GIT_PASSWORD", getPassword().get());
-        }
-
-        spec.workingDir(repoDir);
-        spec.setStandardOutput(OutputStream.nullOutputStream());
-      });
-
       getExecOperations().exec(spec -> {
         spec.commandLine("git", "switch", "--force-create", pubBranch, String.format("origin/%s", pubBranch));
         spec.workingDir(repoDir);
@@ -222,6 +125,9 @@ public abstract class GitPublishReset extends DefaultTask {
     var repoTree = getObjectFactory().fileTree();
     repoTree.from(repoDir);
     var preservedTree = repoTree.matching(getPreserve());
+    for (var aggregatedPreserve : getAggregatedPreserves()) {
+      preservedTree = preservedTree.plus(repoTree.matching(aggregatedPreserve));
+    }
     var unwantedTree = repoTree.minus(preservedTree).getAsFileTree();
     unwantedTree.visit(new FileVisitor() {
       @Override
@@ -246,4 +152,30 @@ public abstract class GitPublishReset extends DefaultTask {
       spec.setStandardOutput(OutputStream.nullOutputStream());
     });
   }
+
+  private boolean awaitPrefetch(BranchFetcher fetcher) throws IOException {
+    boolean hasBranch;
+    boolean alreadyDone;
+    try {
+      var prefetchService = getPrefetchService().get();
+      alreadyDone = prefetchService.isFetchDone();
+      hasBranch = prefetchService.awaitFetch();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new BuildCancelledException("Interrupted while waiting for prefetch of " + getBranch().get(), e);
+    } catch (Exception e) {
+      // fetch again, so any error is reported from the task itself
+      getLogger().info("Prefetch of {} failed, fetching again.", getBranch().get(), e);
+      return fetcher.fetch();
+    }
+
+    // other tasks (e.g. clean) may have deleted the repo while we weren't looking
+    if (!fetcher.isFetched(hasBranch)) {
+      getLogger().info("Prefetched repo for {} is no longer intact, fetching again.", getBranch().get());
+      return fetcher.fetch();
+    }
+
+    getLogger().info("Using prefetched {} from {} ({})", getBranch().get(), getRepoUri().get(), alreadyDone ? "already fetched when reset started" : "waited for fetch to finish");
+    return hasBranch;
+  }
 }